@@ -0,0 +1,110 @@
+package pt.ipbeja.weather;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// Cache de respostas com validade (TTL) e tamanho máximo.
+// Pedidos repetidos enquanto o primeiro ainda está a decorrer
+// recebem o mesmo CompletableFuture, por isso só há um pedido HTTP.
+public class ResponseCache<V> {
+
+    private final long ttlNanos;
+    private final int maxEntries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    // Ordem de acesso: a entrada menos usada é a primeira a sair
+    private final Map<String, Entry<V>> entries;
+
+    public ResponseCache(Duration ttl, int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException(
+                    "maxEntries must be positive: " + maxEntries);
+        }
+        this.ttlNanos = ttl.toNanos();
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<String, Entry<V>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, Entry<V>> eldest) {
+                if (size() > ResponseCache.this.maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public CompletableFuture<V> get(String key,
+            Supplier<CompletableFuture<V>> loader) {
+        Entry<V> entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && !entry.isExpired(System.nanoTime())) {
+                hits.incrementAndGet();
+                return entry.future;
+            }
+            if (entry != null) {
+                entries.remove(key);
+                evictions.incrementAndGet();
+            }
+            misses.incrementAndGet();
+            entry = new Entry<>(loader.get());
+            entries.put(key, entry);
+        }
+
+        Entry<V> loaded = entry;
+        loaded.future.whenComplete((value, throwable) -> {
+            if (throwable != null) {
+                // Falhas não ficam em cache
+                synchronized (entries) {
+                    entries.remove(key, loaded);
+                }
+            } else {
+                loaded.expiresAt = System.nanoTime() + ttlNanos;
+            }
+        });
+        return loaded.future;
+    }
+
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private static final class Entry<V> {
+        final CompletableFuture<V> future;
+
+        // Só começa a contar quando a resposta chega
+        volatile long expiresAt = Long.MAX_VALUE;
+
+        Entry(CompletableFuture<V> future) {
+            this.future = future;
+        }
+
+        boolean isExpired(long now) {
+            long deadline = expiresAt;
+            return deadline != Long.MAX_VALUE && now - deadline >= 0;
+        }
+    }
+}
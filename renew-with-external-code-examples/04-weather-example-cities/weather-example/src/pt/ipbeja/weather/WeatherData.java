@@ -0,0 +1,136 @@
+package pt.ipbeja.weather;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+// Dados meteorológicos de um local com esquema fixo.
+// Os valores ficam num double[] pela ordem de FIELDS; um campo
+// ausente é NaN e não aparece no mapa. Continua a ser um
+// Map<String, Double> para que a rede possa fazer
+// externalData.get("current_weather_temperature"). É Serializable,
+// como o HashMap que substitui, porque o Renew serializa os tokens
+// (guardar o estado da simulação, transações em base de dados).
+public final class WeatherData extends AbstractMap<String, Double>
+        implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String[] FIELDS = {
+        "latitude",
+        "longitude",
+        "generationtime_ms",
+        "utc_offset_seconds",
+        "elevation",
+        "current_weather_temperature",
+        "current_weather_windspeed",
+        "current_weather_winddirection",
+        "current_weather_weathercode",
+        "current_weather_is_day",
+        "current_weather_interval"
+    };
+
+    // Vista só de leitura: alterar os nomes estragaria as chaves
+    // de todos os registos
+    public static final List<String> FIELD_NAMES =
+            Collections.unmodifiableList(Arrays.asList(FIELDS));
+
+    private static final Map<String, Integer> INDEX = new HashMap<>();
+
+    static {
+        for (int i = 0; i < FIELDS.length; i++) {
+            INDEX.put(FIELDS[i], i);
+        }
+    }
+
+    private final double[] values;
+
+    WeatherData(double[] values) {
+        this.values = values;
+    }
+
+    static double[] newValues() {
+        double[] values = new double[FIELDS.length];
+        Arrays.fill(values, Double.NaN);
+        return values;
+    }
+
+    // Posição do campo em FIELDS, ou -1 se não fizer parte do esquema
+    static int indexOf(String field) {
+        Integer index = INDEX.get(field);
+        return index == null ? -1 : index;
+    }
+
+    public double getDouble(int index) {
+        return values[index];
+    }
+
+    @Override
+    public Double get(Object key) {
+        Integer index = INDEX.get(key);
+        if (index == null || Double.isNaN(values[index])) {
+            return null;
+        }
+        return values[index];
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    @Override
+    public Set<Map.Entry<String, Double>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Double>>() {
+            @Override
+            public Iterator<Map.Entry<String, Double>> iterator() {
+                return new Iterator<Map.Entry<String, Double>>() {
+                    private int next = advance(0);
+
+                    private int advance(int from) {
+                        while (from < values.length &&
+                                Double.isNaN(values[from])) {
+                            from++;
+                        }
+                        return from;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < values.length;
+                    }
+
+                    @Override
+                    public Map.Entry<String, Double> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        int current = next;
+                        next = advance(current + 1);
+                        return new SimpleImmutableEntry<>(FIELDS[current],
+                                values[current]);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                int size = 0;
+                for (double value : values) {
+                    if (!Double.isNaN(value)) {
+                        size++;
+                    }
+                }
+                return size;
+            }
+        };
+    }
+}
@@ -0,0 +1,259 @@
+package pt.ipbeja.weather;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Leitor de JSON em streaming para as respostas do open-meteo.
+// Lê diretamente dos bytes da resposta, sem construir árvores
+// JSONObject: só os campos numéricos do esquema de WeatherData
+// são convertidos, o resto é saltado.
+final class WeatherDataParser {
+
+    private static final String KEY_CURRENT_WEATHER = "current_weather";
+    private static final String CURRENT_WEATHER_PREFIX =
+            KEY_CURRENT_WEATHER + "_";
+
+    private final InputStream in;
+    private final StringBuilder text = new StringBuilder();
+    private int peeked = -2;
+
+    private WeatherDataParser(InputStream in) {
+        this.in = new BufferedInputStream(in);
+    }
+
+    // Aceita um objeto (um local) ou um array de objetos (vários locais)
+    static List<WeatherData> parse(InputStream in) throws IOException {
+        try (InputStream input = in) {
+            WeatherDataParser parser = new WeatherDataParser(input);
+            List<WeatherData> locations = new ArrayList<>();
+            int c = parser.peekToken();
+            if (c == '[') {
+                parser.read();
+                if (parser.peekToken() == ']') {
+                    parser.read();
+                } else {
+                    do {
+                        locations.add(parser.readLocation());
+                    } while (parser.nextSeparator(']'));
+                }
+            } else {
+                locations.add(parser.readLocation());
+            }
+            // Só espaços podem seguir-se à raiz
+            c = parser.peekToken();
+            if (c != -1) {
+                throw new IOException("Unexpected content after JSON root: " +
+                        describe(c));
+            }
+            return locations;
+        }
+    }
+
+    private WeatherData readLocation() throws IOException {
+        double[] values = WeatherData.newValues();
+        expect('{');
+        if (peekToken() == '}') {
+            read();
+            return new WeatherData(values);
+        }
+        do {
+            String key = readString();
+            expect(':');
+            if (KEY_CURRENT_WEATHER.equals(key) && peekToken() == '{') {
+                readCurrentWeather(values);
+            } else {
+                readField(values, WeatherData.indexOf(key));
+            }
+        } while (nextSeparator('}'));
+        return new WeatherData(values);
+    }
+
+    private void readCurrentWeather(double[] values) throws IOException {
+        expect('{');
+        if (peekToken() == '}') {
+            read();
+            return;
+        }
+        do {
+            String key = readString();
+            expect(':');
+            readField(values,
+                    WeatherData.indexOf(CURRENT_WEATHER_PREFIX + key));
+        } while (nextSeparator('}'));
+    }
+
+    private void readField(double[] values, int index) throws IOException {
+        int c = peekToken();
+        if (index >= 0 && (c == '-' || (c >= '0' && c <= '9'))) {
+            values[index] = readNumber();
+        } else {
+            skipValue();
+        }
+    }
+
+    private void skipValue() throws IOException {
+        int c = peekToken();
+        switch (c) {
+        case '{':
+        case '[':
+            int close = c == '{' ? '}' : ']';
+            read();
+            if (peekToken() == close) {
+                read();
+                return;
+            }
+            do {
+                if (close == '}') {
+                    readString();
+                    expect(':');
+                }
+                skipValue();
+            } while (nextSeparator(close));
+            return;
+        case '"':
+            readString();
+            return;
+        default:
+            // Números, true, false e null
+            boolean empty = true;
+            while (c != -1 && c != ',' && c != '}' && c != ']' &&
+                    !Character.isWhitespace(c)) {
+                read();
+                c = peek();
+                empty = false;
+            }
+            if (empty) {
+                throw new IOException("Expected a value but found " +
+                        describe(c));
+            }
+        }
+    }
+
+    private double readNumber() throws IOException {
+        text.setLength(0);
+        int c = peek();
+        while (c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E' ||
+                (c >= '0' && c <= '9')) {
+            text.append((char) read());
+            c = peek();
+        }
+        try {
+            return Double.parseDouble(text.toString());
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid number: " + text, e);
+        }
+    }
+
+    private String readString() throws IOException {
+        expect('"');
+        // Os bytes UTF-8 são acumulados e descodificados no fim
+        byte[] bytes = new byte[32];
+        int length = 0;
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                throw new IOException("Unterminated string");
+            }
+            if (c == '"') {
+                break;
+            }
+            byte[] escaped = null;
+            if (c == '\\') {
+                c = read();
+                switch (c) {
+                case 'b': c = '\b'; break;
+                case 'f': c = '\f'; break;
+                case 'n': c = '\n'; break;
+                case 'r': c = '\r'; break;
+                case 't': c = '\t'; break;
+                case 'u':
+                    escaped = String.valueOf((char) readHex())
+                            .getBytes(StandardCharsets.UTF_8);
+                    break;
+                default:
+                    // '"', '\\' e '/' representam-se a si próprios
+                }
+            }
+            int needed = escaped == null ? 1 : escaped.length;
+            if (length + needed > bytes.length) {
+                bytes = Arrays.copyOf(bytes, (length + needed) * 2);
+            }
+            if (escaped == null) {
+                bytes[length++] = (byte) c;
+            } else {
+                System.arraycopy(escaped, 0, bytes, length, needed);
+                length += needed;
+            }
+        }
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private int readHex() throws IOException {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            int digit = Character.digit(read(), 16);
+            if (digit < 0) {
+                throw new IOException("Invalid unicode escape");
+            }
+            value = value * 16 + digit;
+        }
+        return value;
+    }
+
+    // Depois de um elemento: true se vem ',' e há mais, false se fecha
+    private boolean nextSeparator(int close) throws IOException {
+        int c = readToken();
+        if (c == ',') {
+            return true;
+        }
+        if (c == close) {
+            return false;
+        }
+        throw new IOException("Expected ',' or '" + (char) close +
+                "' but found " + describe(c));
+    }
+
+    private void expect(int expected) throws IOException {
+        int c = readToken();
+        if (c != expected) {
+            throw new IOException("Expected '" + (char) expected +
+                    "' but found " + describe(c));
+        }
+    }
+
+    private static String describe(int c) {
+        return c == -1 ? "end of input" : "'" + (char) c + "'";
+    }
+
+    private int readToken() throws IOException {
+        peekToken();
+        return read();
+    }
+
+    private int peekToken() throws IOException {
+        int c = peek();
+        while (c != -1 && Character.isWhitespace(c)) {
+            read();
+            c = peek();
+        }
+        return c;
+    }
+
+    private int peek() throws IOException {
+        if (peeked == -2) {
+            peeked = in.read();
+        }
+        return peeked;
+    }
+
+    private int read() throws IOException {
+        int c = peek();
+        peeked = -2;
+        return c;
+    }
+}
@@ -1,30 +1,252 @@
 package pt.ipbeja.weather;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import org.json.JSONException;
-import org.json.JSONObject;
 import java.util.Locale;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.log4j.Logger;
+
+import de.renew.engine.simulator.SimulationThreadPool;
 
 public class WeatherDataReader {
 
-    // JSON Key constants
-    private static final String KEY_CURRENT_WEATHER = "current_weather";
+    // Respostas completas e dados lidos só aparecem em nível DEBUG
+    private static final Logger logger = 
+            Logger.getLogger(WeatherDataReader.class);
+
+    // Tempo máximo para o canal :receiveData sincronizar
+    private static final long DELIVERY_TIMEOUT_SECONDS = 30;
+
+    // Endereço por omissão da API open-meteo
+    private static final String DEFAULT_BASE_URL =
+            "https://api.open-meteo.com/v1/forecast";
+
+    // Respostas guardadas durante 5 minutos, até 1000 coordenadas
+    private static final Duration DEFAULT_CACHE_TTL = Duration.ofMinutes(5);
+    private static final int DEFAULT_CACHE_SIZE = 1000;
+
+    // Número de cidades por pedido no modo em lote
+    private static final int DEFAULT_BATCH_SIZE = 50;
 
     // Partilha do HttpClient (estático e único)
     private static final HttpClient HTTP_CLIENT = 
             HttpClient.newHttpClient();
 
     private final WeatherNetClass weatherNetToReceiveData;
+    private final String baseUrl;
+    private final ResponseCache<WeatherData> responseCache;
+    private volatile int batchSize = DEFAULT_BATCH_SIZE;
+    private volatile WeatherInbox inbox;
 
     public WeatherDataReader(WeatherNetClass weatherNetToReceiveData) {
+        this(weatherNetToReceiveData, DEFAULT_BASE_URL,
+                new ResponseCache<>(DEFAULT_CACHE_TTL, DEFAULT_CACHE_SIZE));
+    }
+
+    // Permite apontar para um servidor local (por exemplo, em testes)
+    public WeatherDataReader(WeatherNetClass weatherNetToReceiveData,
+            String baseUrl, 
+            ResponseCache<WeatherData> responseCache) {
         this.weatherNetToReceiveData = weatherNetToReceiveData;
+        this.baseUrl = baseUrl;
+        this.responseCache = responseCache;
+    }
+
+    public ResponseCache<WeatherData> getResponseCache() {
+        return responseCache;
+    }
+
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException(
+                    "batchSize must be positive: " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
+    // Com uma caixa de entrada, os dados são entregues à rede em lotes
+    public void setInbox(WeatherInbox inbox) {
+        this.inbox = inbox;
+    }
+
+    // Pede os dados de várias cidades com um pedido HTTP por grupo.
+    // Cada valor do mapa é {latitude, longitude}; a API aceita listas
+    // separadas por vírgulas e devolve um array pela mesma ordem.
+    // Cada cidade passa pela cache com a mesma chave de
+    // askForWeatherData: as que já lá estão (ou estão a ser pedidas)
+    // não voltam a ser pedidas, as restantes vão em grupos.
+    public void askForWeatherDataBatch(Map<String, double[]> cities) {
+        // Valida tudo antes de enviar o primeiro pedido
+        for (Map.Entry<String, double[]> city : cities.entrySet()) {
+            double[] coordinates = city.getValue();
+            if (city.getKey() == null || coordinates == null ||
+                    coordinates.length < 2) {
+                throw new IllegalArgumentException("Expected a city name " +
+                        "and {latitude, longitude} but got " + 
+                        city.getKey() + " = " + 
+                        Arrays.toString(coordinates));
+            }
+        }
+
+        List<String> cachedNames = new ArrayList<>();
+        List<CompletableFuture<WeatherData>> cachedFutures = 
+                new ArrayList<>();
+        List<String> group = new ArrayList<>();
+        List<CompletableFuture<WeatherData>> pending = new ArrayList<>();
+        StringBuilder latitudes = new StringBuilder();
+        StringBuilder longitudes = new StringBuilder();
+        int size = batchSize;
+
+        // O loader só corre quando a cidade não está em cache; deixa
+        // aqui o future que o grupo vai completar
+        List<CompletableFuture<WeatherData>> created = new ArrayList<>(1);
+
+        for (Map.Entry<String, double[]> city : cities.entrySet()) {
+            String cityName = city.getKey();
+            double latitude = city.getValue()[0];
+            double longitude = city.getValue()[1];
+
+            CompletableFuture<WeatherData> future = responseCache.get(
+                    singleUrl(latitude, longitude), () -> {
+                        CompletableFuture<WeatherData> load = 
+                                new CompletableFuture<>();
+                        created.add(load);
+                        return load;
+                    });
+            if (created.isEmpty()) {
+                cachedNames.add(cityName);
+                cachedFutures.add(future);
+                continue;
+            }
+            created.clear();
+
+            if (!group.isEmpty()) {
+                latitudes.append(',');
+                longitudes.append(',');
+            }
+            group.add(cityName);
+            pending.add(future);
+            latitudes.append(String.format(Locale.US, "%.2f", latitude));
+            longitudes.append(String.format(Locale.US, "%.2f", longitude));
+
+            if (group.size() == size) {
+                askForGroup(group, pending, latitudes, longitudes);
+                group = new ArrayList<>();
+                pending = new ArrayList<>();
+                latitudes.setLength(0);
+                longitudes.setLength(0);
+            }
+        }
+        if (!group.isEmpty()) {
+            askForGroup(group, pending, latitudes, longitudes);
+        }
+        if (!cachedNames.isEmpty()) {
+            System.out.println("Serving " + cachedNames.size() + 
+                    " cities from the cache");
+            deliverWhenDone(cachedNames, cachedFutures);
+        }
+    }
+
+    // Completa os futures da cache com a resposta do grupo
+    private void askForGroup(List<String> cityNames, 
+            List<CompletableFuture<WeatherData>> pending,
+            CharSequence latitudes, CharSequence longitudes) {
+        String apiUrl = baseUrl + "?latitude=" + latitudes + 
+                "&longitude=" + longitudes + "&current_weather=true";
+
+        System.out.println("Sending batch request for " + 
+                cityNames.size() + " cities to: " + apiUrl);
+
+        try {
+            HttpRequest request = HttpRequest.newBuilder()
+                    .uri(URI.create(apiUrl))
+                    .GET()
+                    .build();
+
+            HTTP_CLIENT.sendAsync(request, 
+                    HttpResponse.BodyHandlers.ofInputStream())
+                    .thenApply(response -> parseBatchResponse(cityNames, 
+                            response))
+                    .whenComplete((weatherDataList, throwable) -> {
+                        for (int i = 0; i < pending.size(); i++) {
+                            if (throwable != null) {
+                                pending.get(i).completeExceptionally(
+                                        throwable);
+                            } else {
+                                pending.get(i).complete(
+                                        weatherDataList.get(i));
+                            }
+                        }
+                    });
+        } catch (RuntimeException e) {
+            // Sem isto os futures ficariam pendentes na cache para sempre
+            for (CompletableFuture<WeatherData> future : pending) {
+                future.completeExceptionally(e);
+            }
+        }
+        deliverWhenDone(cityNames, pending);
+    }
+
+    // Quando todas as cidades tiverem resposta (ou falha), entrega-as
+    // à rede de uma só vez. O Async evita correr na thread de quem
+    // pediu quando as respostas já estavam em cache.
+    private void deliverWhenDone(List<String> cityNames, 
+            List<CompletableFuture<WeatherData>> futures) {
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+                .whenCompleteAsync((ignored, ignoredThrowable) -> {
+                    List<Map.Entry<String, Map<String, Double>>> entries = 
+                            new ArrayList<>(cityNames.size());
+                    for (int i = 0; i < cityNames.size(); i++) {
+                        String cityName = cityNames.get(i);
+                        Map<String, Double> data;
+                        try {
+                            data = futures.get(i).join();
+                            dumpWeatherData(cityName, data);
+                        } catch (CompletionException | 
+                                CancellationException throwable) {
+                            Throwable cause = 
+                                    throwable instanceof CompletionException &&
+                                    throwable.getCause() != null ? 
+                                    throwable.getCause() : throwable;
+                            System.err.println(
+                                    "Error: Exception during data fetch " +
+                                    "for " + cityName + " - " + 
+                                    cause.getMessage());
+                            data = Collections.emptyMap();
+                        }
+                        entries.add(new AbstractMap.SimpleImmutableEntry<>(
+                                cityName, data));
+                    }
+                    deliverBatchToNet(entries);
+                });
+    }
+
+    private List<WeatherData> parseBatchResponse(
+            List<String> cityNames, HttpResponse<InputStream> response) {
+        List<WeatherData> weatherDataList = parseBody(response);
+        if (weatherDataList.size() != cityNames.size()) {
+            throw new IllegalStateException("Expected " + 
+                    cityNames.size() + " locations but got " + 
+                    weatherDataList.size());
+        }
+        return weatherDataList;
     }
 
     public void askForWeatherData(String cityName, double latitude, 
@@ -34,12 +256,40 @@ public class WeatherDataReader {
         System.out.println("Preparing to fetch weather data " +
                 "for " + cityName + "...");
 
-        String apiUrl = String.format(Locale.US,
-                "https://api.open-meteo.com/v1/forecast?" +
-                "latitude=%.2f&longitude=%.2f&" +
+        String apiUrl = singleUrl(latitude, longitude);
+
+        // Um acerto na cache já vem completo: o Async tira a entrega
+        // da thread da simulação que chamou (ação de weatherStart.rnw)
+        responseCache.get(apiUrl, () -> fetchWeatherData(apiUrl))
+                .whenCompleteAsync((weatherDataMap, throwable) -> {
+                    if (throwable != null) {
+                        Throwable cause = 
+                                throwable instanceof CompletionException &&
+                                throwable.getCause() != null ? 
+                                throwable.getCause() : throwable;
+                        String errorMessage = 
+                                "Error: Exception during data fetch for " + 
+                                cityName + " - " + cause.getMessage();
+                        System.err.println(errorMessage);
+                        deliverToNet(cityName, 
+                                Collections.emptyMap());
+                    } else {
+                        processWeatherData(cityName, weatherDataMap);
+                    }
+                });
+    }
+
+    // As coordenadas arredondadas a 2 casas decimais formam
+    // o URL, que serve também de chave da cache
+    private String singleUrl(double latitude, double longitude) {
+        return String.format(Locale.US,
+                "%s?latitude=%.2f&longitude=%.2f&" +
                 "current_weather=true",
-                latitude, longitude);
+                baseUrl, latitude, longitude);
+    }
 
+    private CompletableFuture<WeatherData> fetchWeatherData(
+            String apiUrl) {
         HttpRequest request = HttpRequest.newBuilder()
                 .uri(URI.create(apiUrl))
                 .GET()
@@ -49,103 +299,160 @@ public class WeatherDataReader {
 
         // API do Java para pedidos assíncronos
         // Elimina a necessidade de criar Threads manualmente
-        HTTP_CLIENT.sendAsync(request, 
-                HttpResponse.BodyHandlers.ofString())
-                .thenAccept(response -> processResponse(cityName, 
-                        response))
-                .exceptionally(throwable -> {
-                    String errorMessage = 
-                            "Error: Exception during data fetch for " + 
-                            cityName + " - " + throwable.getMessage();
-                    System.err.println(errorMessage);
-                    weatherNetToReceiveData.receiveData(cityName, 
-                            Collections.emptyMap());
-                    return null;
-                });
+        return HTTP_CLIENT.sendAsync(request, 
+                HttpResponse.BodyHandlers.ofInputStream())
+                .thenApply(response -> parseResponse(response));
     }
 
-    private void processResponse(String cityName, 
-            HttpResponse<String> response) {
-        if (response.statusCode() == 200) {
-            String responseBody = response.body();
-            System.out.println("Raw response for " + 
-                    cityName + ": " + responseBody);
+    private WeatherData parseResponse(HttpResponse<InputStream> response) {
+        List<WeatherData> weatherDataList = parseBody(response);
+        if (weatherDataList.size() != 1) {
+            throw new IllegalStateException("Expected 1 location but got " + 
+                    weatherDataList.size());
+        }
+        return weatherDataList.get(0);
+    }
 
+    // Lê o corpo da resposta em streaming, sem o guardar como String
+    private List<WeatherData> parseBody(HttpResponse<InputStream> response) {
+        if (response.statusCode() != 200) {
             try {
-                Map<String, Double> weatherDataMap = 
-                        parseWeatherData(responseBody);
-
-                System.out.println("--- Parsed Weather Data " +
-                        "for " + cityName + 
-                        " (within askForWeatherData) ---");
-                
-                if (weatherDataMap.isEmpty()) {
-                    System.out.println("  Map is empty after parsing.");
-                } else {
-                    for (Map.Entry<String, Double> entry : 
-                            weatherDataMap.entrySet()) {
-                        System.out.printf("  %s: %.2f\n", 
-                                entry.getKey(), entry.getValue());
-                    }
-                }
-                
-                System.out.println("---------------------------------" +
-                        "-----------------------------------");
-                System.out.println("Going to send parsed data to " +
-                        "the net for city " + cityName);
-                weatherNetToReceiveData.receiveData(cityName, 
-                        weatherDataMap);
-                System.out.println("---------------------------------" +
-                        "-----------------------------------");
-
-            } catch (JSONException e) {
-                String errorMessage = 
-                        "Error: Exception during data parsing " + 
-                        "for " + cityName + " - " + e.getMessage();
-                System.err.println(errorMessage);
-                e.printStackTrace();
-                weatherNetToReceiveData.receiveData(cityName, 
-                        Collections.emptyMap());
+                response.body().close();
+            } catch (IOException e) {
+                // O pedido já falhou; fechar é só libertar a ligação
             }
-        } else {
-            String errorMessage = 
-                    "Error: Could not fetch weather data " +
-                    "for " + cityName + ". Status code: " + 
-                    response.statusCode();
-            System.err.println(errorMessage);
-            weatherNetToReceiveData.receiveData(cityName, 
-                    Collections.emptyMap());
+            throw new IllegalStateException(
+                    "Could not fetch weather data. Status code: " + 
+                    response.statusCode());
+        }
+
+        try {
+            return WeatherDataParser.parse(response.body());
+        } catch (IOException e) {
+            throw new UncheckedIOException(
+                    "Exception during data parsing - " + e.getMessage(), e);
         }
     }
 
-    private Map<String, Double> parseWeatherData(String jsonData) 
-            throws JSONException {
-        Map<String, Double> weatherDataMap = new HashMap<>();
-        JSONObject root = new JSONObject(jsonData);
+    private void processWeatherData(String cityName, 
+            Map<String, Double> weatherDataMap) {
+        dumpWeatherData(cityName, weatherDataMap);
 
-        Iterator<String> rootKeys = root.keys();
-        while (rootKeys.hasNext()) {
-            String key = rootKeys.next();
-            Object value = root.get(key);
-            if (value instanceof Number) {
-                weatherDataMap.put(key, root.getDouble(key));
+        System.out.println("Going to send parsed data to " +
+                "the net for city " + cityName);
+        deliverToNet(cityName, 
+                weatherDataMap);
+        System.out.println("---------------------------------" +
+                "-----------------------------------");
+    }
+
+    private void dumpWeatherData(String cityName, 
+            Map<String, Double> weatherDataMap) {
+        if (logger.isDebugEnabled()) {
+            StringBuilder dump = new StringBuilder();
+            dump.append("--- Parsed Weather Data for ").append(cityName)
+                    .append(" (within askForWeatherData) ---");
+            if (weatherDataMap.isEmpty()) {
+                dump.append("\n  Map is empty after parsing.");
+            } else {
+                for (Map.Entry<String, Double> entry : 
+                        weatherDataMap.entrySet()) {
+                    dump.append(String.format(Locale.US, "\n  %s: %.2f", 
+                            entry.getKey(), entry.getValue()));
+                }
+            }
+            logger.debug(dump);
+        }
+    }
+
+    // Entrega um lote numa única tarefa da simulação, através de
+    // WeatherNetClass.receiveDataBatch, com o mesmo limite de tempo
+    // de deliverToNet. Com caixa de entrada, cada cidade vai para ela.
+    private void deliverBatchToNet(
+            List<Map.Entry<String, Map<String, Double>>> entries) {
+        if (inbox != null) {
+            for (Map.Entry<String, Map<String, Double>> entry : entries) {
+                deliverToNet(entry.getKey(), entry.getValue());
             }
+            return;
         }
 
-        if (root.has(KEY_CURRENT_WEATHER)) {
-            JSONObject currentWeatherObject = 
-                    root.getJSONObject(KEY_CURRENT_WEATHER);
-            Iterator<String> currentWeatherKeys = 
-                    currentWeatherObject.keys();
-            while (currentWeatherKeys.hasNext()) {
-                String key = currentWeatherKeys.next();
-                Object value = currentWeatherObject.get(key);
-                if (value instanceof Number) {
-                    weatherDataMap.put(KEY_CURRENT_WEATHER + "_" + key, 
-                            currentWeatherObject.getDouble(key));
+        System.out.println("Going to send parsed data to the net for " + 
+                entries.size() + " cities");
+        CompletableFuture<List<RuntimeException>> delivery = 
+                new CompletableFuture<>();
+        try {
+            // Numa thread da simulação receiveDataBatch corre diretamente
+            SimulationThreadPool.getCurrent().execute(() -> {
+                try {
+                    delivery.complete(
+                            weatherNetToReceiveData.receiveDataBatch(entries));
+                } catch (Throwable t) {
+                    delivery.completeExceptionally(t);
                 }
+            });
+        } catch (RuntimeException e) {
+            delivery.completeExceptionally(e);
+        }
+
+        delivery.orTimeout(DELIVERY_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .whenComplete((outcomes, throwable) -> {
+                    if (throwable instanceof TimeoutException) {
+                        // orTimeout não cancela a sincronização em curso
+                        System.err.println("Error: Delivery of weather " +
+                                "data for " + entries.size() + " cities " +
+                                "timed out after " + 
+                                DELIVERY_TIMEOUT_SECONDS + 
+                                " s (TimeoutException); it may still " +
+                                "complete later");
+                    } else if (throwable != null) {
+                        System.err.println("Error: Could not deliver " +
+                                "weather data for " + entries.size() + 
+                                " cities to the net - " + throwable);
+                    } else {
+                        for (int i = 0; i < outcomes.size(); i++) {
+                            if (outcomes.get(i) != null) {
+                                System.err.println("Error: Could not " +
+                                        "deliver weather data for " + 
+                                        entries.get(i).getKey() + 
+                                        " to the net - " + outcomes.get(i));
+                            }
+                        }
+                    }
+                });
+    }
+
+    // Entrega os dados à rede sem bloquear a thread do HttpClient
+    // enquanto o canal :receiveData sincroniza
+    private void deliverToNet(String cityName, Map<String, Double> data) {
+        WeatherInbox currentInbox = inbox;
+        if (currentInbox != null) {
+            try {
+                if (!currentInbox.offer(cityName, data)) {
+                    System.err.println("Error: Inbox dropped weather " +
+                            "data for " + cityName);
+                }
+            } catch (IllegalStateException e) {
+                System.err.println("Error: " + e.getMessage());
             }
+            return;
         }
-        return weatherDataMap;
+        weatherNetToReceiveData.receiveDataAsync(cityName, data)
+                .orTimeout(DELIVERY_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                .exceptionally(throwable -> {
+                    if (throwable instanceof TimeoutException) {
+                        // orTimeout não cancela a sincronização em curso
+                        System.err.println("Error: Delivery of weather " +
+                                "data for " + cityName + " timed out " +
+                                "after " + DELIVERY_TIMEOUT_SECONDS + 
+                                " s (TimeoutException); it may still " +
+                                "complete later");
+                    } else {
+                        System.err.println("Error: Could not deliver " +
+                                "weather data for " + cityName + 
+                                " to the net - " + throwable);
+                    }
+                    return null;
+                });
     }
 }
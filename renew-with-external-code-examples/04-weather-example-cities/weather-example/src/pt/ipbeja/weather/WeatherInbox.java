@@ -0,0 +1,130 @@
+package pt.ipbeja.weather;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import de.renew.engine.simulator.SimulationThreadPool;
+
+// Caixa de entrada limitada para vários produtores (threads do
+// HttpClient, por exemplo). Os produtores só acrescentam à fila;
+// uma única tarefa da simulação esvazia-a em lotes através de
+// WeatherNetClass.receiveDataBatch, em vez de uma sincronização
+// do canal :receiveData por cada evento.
+public class WeatherInbox {
+
+    // O que fazer quando a caixa está cheia
+    public enum Overflow {
+        BLOCK,  // o produtor espera; numa thread da simulação, que
+                // poderia ser a que esvazia a caixa, offer lança
+                // IllegalStateException em vez de esperar
+        DROP,   // o evento é descartado e offer devolve false
+        FAIL    // offer lança IllegalStateException
+    }
+
+    // Máximo de eventos entregues por cada tarefa da simulação
+    private static final int MAX_DRAIN = 256;
+
+    private final WeatherNetClass weatherNet;
+    private final int capacity;
+    private final Overflow overflow;
+
+    private final Queue<Map.Entry<String, Object>> events =
+            new ConcurrentLinkedQueue<>();
+    private final Semaphore freeSlots;
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+
+    public WeatherInbox(WeatherNetClass weatherNet, int capacity,
+            Overflow overflow) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException(
+                    "capacity must be positive: " + capacity);
+        }
+        this.weatherNet = weatherNet;
+        this.capacity = capacity;
+        this.overflow = overflow;
+        this.freeSlots = new Semaphore(capacity);
+    }
+
+    public boolean offer(String cityName, Object data) {
+        if (!freeSlots.tryAcquire()) {
+            switch (overflow) {
+            case BLOCK:
+                if (SimulationThreadPool.isSimulationThread()) {
+                    throw new IllegalStateException("Inbox full (capacity " +
+                            capacity + "), cannot block a simulation " +
+                            "thread for " + cityName);
+                }
+                try {
+                    freeSlots.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+                break;
+            case FAIL:
+                throw new IllegalStateException("Inbox full (capacity " +
+                        capacity + "), rejected data for " + cityName);
+            default:
+                return false;
+            }
+        }
+        events.add(new AbstractMap.SimpleImmutableEntry<>(cityName, data));
+        scheduleDrain();
+        return true;
+    }
+
+    public int size() {
+        return capacity - freeSlots.availablePermits();
+    }
+
+    private void scheduleDrain() {
+        if (drainScheduled.compareAndSet(false, true)) {
+            try {
+                SimulationThreadPool.getCurrent().execute(this::drain);
+            } catch (RuntimeException e) {
+                // Por exemplo RejectedExecutionException: sem isto
+                // nenhuma outra entrega voltaria a agendar a tarefa
+                drainScheduled.set(false);
+                throw e;
+            }
+        }
+    }
+
+    private void drain() {
+        List<Map.Entry<String, Object>> batch = new ArrayList<>();
+        Map.Entry<String, Object> event;
+        while (batch.size() < MAX_DRAIN && (event = events.poll()) != null) {
+            batch.add(event);
+        }
+
+        try {
+            if (!batch.isEmpty()) {
+                // Já numa thread da simulação: receiveDataBatch corre
+                // diretamente, sem nova troca de thread
+                List<RuntimeException> outcomes =
+                        weatherNet.receiveDataBatch(batch);
+                for (int i = 0; i < outcomes.size(); i++) {
+                    if (outcomes.get(i) != null) {
+                        System.err.println("Error: Could not deliver " +
+                                "weather data for " +
+                                batch.get(i).getKey() + " to the net - " +
+                                outcomes.get(i));
+                    }
+                }
+            }
+        } finally {
+            freeSlots.release(batch.size());
+            drainScheduled.set(false);
+            // Eventos que chegaram durante a entrega
+            if (!events.isEmpty()) {
+                scheduleDrain();
+            }
+        }
+    }
+}
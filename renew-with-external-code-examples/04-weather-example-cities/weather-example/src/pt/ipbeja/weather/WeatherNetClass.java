@@ -1,9 +1,18 @@
-package pt.ipbeja.weather;// This file was automatically generated. Do not modify.
+// Generated from WeatherNetClass.stub by compilestub, then moved into
+// this package and extended by hand (async, batch). compilestub only
+// writes the top-level WeatherNetClass.java, so this file is not
+// regenerated; keep it in sync with the .stub by hand.
+package pt.ipbeja.weather;
+
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.Set;
 import java.util.Collection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
 import de.renew.engine.simulator.SimulationThreadPool;
 import de.renew.net.NetInstance;
@@ -25,25 +34,85 @@ public class WeatherNetClass
       final Object vvdata=ppdata;
       SimulationThreadPool.getCurrent().executeAndWait(new Runnable() {
         public void run() {
-            de.renew.unify.Tuple inTuple;
-            de.renew.unify.Tuple outTuple;
-            inTuple=new de.renew.unify.Tuple(2);
-            try {
-              de.renew.unify.Unify.unify(inTuple.getComponent(0),vvcityName,null);
-            } catch (de.renew.unify.Impossible e) {
-              throw new RuntimeException("Unification failed unexpectedly.", e);
-            }
+            synchronizeReceiveData(vvcityName,vvdata);
+        }
+      });
+  }
+  /**
+   * Queues :receiveData and returns without blocking the caller. The
+   * call still occupies one thread of the simulation thread pool, which
+   * waits in SynchronisationRequest.synchronize until the channel fires.
+   * That pool is unbounded, so the number of pending calls is not
+   * bounded either; use WeatherInbox when many producers deliver at
+   * once.
+   */
+  public CompletableFuture<Void> receiveDataAsync(final String ppcityName, final Object ppdata)
+  {
+      final Object vvcityName=ppcityName;
+      final Object vvdata=ppdata;
+      final CompletableFuture<Void> result=new CompletableFuture<Void>();
+      SimulationThreadPool.getCurrent().execute(new Runnable() {
+        public void run() {
+          try {
+            synchronizeReceiveData(vvcityName,vvdata);
+            result.complete(null);
+          } catch (Throwable t) {
+            result.completeExceptionally(t);
+          }
+        }
+      });
+      return result;
+  }
+  /**
+   * Synchronises :receiveData once per entry, all inside a single
+   * simulation task.
+   *
+   * @return a list parallel to ppentries: element i is null when entry
+   *         i was delivered, or the RuntimeException that its
+   *         synchronisation threw. A failed entry does not stop the
+   *         remaining ones.
+   */
+  public List<RuntimeException> receiveDataBatch(final List<? extends Map.Entry<String, ?>> ppentries)
+  {
+      final List<RuntimeException> outcomes=new ArrayList<RuntimeException>(ppentries.size());
+      SimulationThreadPool.getCurrent().executeAndWait(new Runnable() {
+        public void run() {
+          for (Map.Entry<String, ?> ppentry : ppentries) {
             try {
-              de.renew.unify.Unify.unify(inTuple.getComponent(1),vvdata,null);
-            } catch (de.renew.unify.Impossible e) {
-              throw new RuntimeException("Unification failed unexpectedly.", e);
+              synchronizeReceiveData(ppentry.getKey(),ppentry.getValue());
+              outcomes.add(null);
+            } catch (RuntimeException e) {
+              outcomes.add(e);
             }
-            outTuple=de.renew.call.SynchronisationRequest.synchronize(
-            _instance,"receiveData",inTuple);
-//**only to avoid unused warnings. !BAD! style**
-            outTuple.hashCode();
+          }
         }
       });
+      return outcomes;
+  }
+  /**
+   * Unifies the arguments into the :receiveData tuple and synchronises
+   * the channel. Must run on a simulation thread; shared by the sync,
+   * async and batch variants.
+   */
+  private void synchronizeReceiveData(Object vvcityName, Object vvdata)
+  {
+      de.renew.unify.Tuple inTuple;
+      de.renew.unify.Tuple outTuple;
+      inTuple=new de.renew.unify.Tuple(2);
+      try {
+        de.renew.unify.Unify.unify(inTuple.getComponent(0),vvcityName,null);
+      } catch (de.renew.unify.Impossible e) {
+        throw new RuntimeException("Unification failed unexpectedly.", e);
+      }
+      try {
+        de.renew.unify.Unify.unify(inTuple.getComponent(1),vvdata,null);
+      } catch (de.renew.unify.Impossible e) {
+        throw new RuntimeException("Unification failed unexpectedly.", e);
+      }
+      outTuple=de.renew.call.SynchronisationRequest.synchronize(
+      _instance,"receiveData",inTuple);
+//**only to avoid unused warnings. !BAD! style**
+      outTuple.hashCode();
   }
   public WeatherNetClass()
   {
@@ -1,12 +1,16 @@
-// This file was automatically generated. Do not modify.
+// Generated from Account.stub by compilestub, then extended by hand.
+// Do not regenerate: see Readme.txt.
 package samples.call;
 
 import de.renew.engine.simulator.SimulationThreadPool;
 import de.renew.net.NetInstance;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 
 public class Account extends de.renew.net.NetInstanceImpl {
@@ -15,52 +19,205 @@ public class Account extends de.renew.net.NetInstanceImpl {
                     .getLogger(Account.class);
     private final NetInstance _instance = this;
 
-    public void deposit(final int ppamount) {
-        final Object vvamount = new de.renew.util.Value(
-                        new java.lang.Integer(ppamount));
-        SimulationThreadPool.getCurrent().executeAndWait(new Runnable() {
-	    @Override
-	    public void run() {
-                de.renew.unify.Tuple inTuple;
-                de.renew.unify.Tuple outTuple;
-                inTuple = new de.renew.unify.Tuple(1);
-                try {
-                    de.renew.unify.Unify.unify(inTuple.getComponent(0),
-                                    vvamount, null);
-                } catch (de.renew.unify.Impossible e) {
-                    throw new RuntimeException(
-                                    "Unification failed unexpectedly.", e);
-                }
-                outTuple = de.renew.call.SynchronisationRequest
-                                .synchronize(_instance, "deposit", inTuple);
-                //**only to avoid unused warnings. !BAD! style**
-                outTuple.hashCode();
+    // The compiled net, resolved once per simulation environment. Held
+    // weakly so that a finished simulation is not kept alive by this
+    // class.
+    private static java.lang.ref.WeakReference<de.renew.application.SimulationEnvironment> netEnvironment = new java.lang.ref.WeakReference<de.renew.application.SimulationEnvironment>(
+                    null);
+    private static java.lang.ref.WeakReference<de.renew.net.Net> net = new java.lang.ref.WeakReference<de.renew.net.Net>(
+                    null);
+
+    // Built once: CastFunction only holds the target class.
+    private static final de.renew.formalism.function.CastFunction INT_CAST = new de.renew.formalism.function.CastFunction(
+                    java.lang.Integer.TYPE);
+
+    // Value is immutable, so wrappers for small amounts are shared.
+    private static final de.renew.util.Value[] SMALL_INT_VALUES = new de.renew.util.Value[256];
+
+    static {
+        for (int i = 0; i < SMALL_INT_VALUES.length; i++) {
+            SMALL_INT_VALUES[i] = new de.renew.util.Value(
+                            java.lang.Integer.valueOf(i - 128));
+        }
+    }
+
+    private static Object intValue(int value) {
+        if (value >= -128 && value <= 127) {
+            return SMALL_INT_VALUES[value + 128];
+        }
+        return new de.renew.util.Value(java.lang.Integer.valueOf(value));
+    }
+
+    private void synchronizeAmount(String channel, Object vvamount) {
+        de.renew.unify.Tuple inTuple;
+        de.renew.unify.Tuple outTuple;
+        inTuple = new de.renew.unify.Tuple(1);
+        try {
+            de.renew.unify.Unify.unify(inTuple.getComponent(0), vvamount,
+                            null);
+        } catch (de.renew.unify.Impossible e) {
+            throw new RuntimeException("Unification failed unexpectedly.", e);
+        }
+        outTuple = de.renew.call.SynchronisationRequest.synchronize(_instance,
+                        channel, inTuple);
+        //**only to avoid unused warnings. !BAD! style**
+        outTuple.hashCode();
+    }
+
+    private void synchronizeAmountAndWait(final String channel,
+                    final Object vvamount) {
+        SimulationThreadPool pool = SimulationThreadPool.getCurrent();
+        if (pool.isMyThread()) {
+            // Already inside the simulation, no task object is needed.
+            synchronizeAmount(channel, vvamount);
+            return;
+        }
+        pool.executeAndWait(new Runnable() {
+            @Override
+            public void run() {
+                synchronizeAmount(channel, vvamount);
             }
         });
     }
 
-    public void withdraw(final int ppamount) {
-        final Object vvamount = new de.renew.util.Value(
-                        new java.lang.Integer(ppamount));
-        SimulationThreadPool.getCurrent().executeAndWait(new Runnable() {
-	    @Override
+    private CompletableFuture<Void> synchronizeAmountAsync(
+                    final String channel, final Object vvamount) {
+        final CompletableFuture<Void> result = new CompletableFuture<Void>();
+        SimulationThreadPool.getCurrent().execute(new Runnable() {
+            @Override
             public void run() {
-                de.renew.unify.Tuple inTuple;
-                de.renew.unify.Tuple outTuple;
-                inTuple = new de.renew.unify.Tuple(1);
+                if (result.isDone()) {
+                    // Cancelled by a timed caller before it started.
+                    return;
+                }
                 try {
-                    de.renew.unify.Unify.unify(inTuple.getComponent(0),
-                                    vvamount, null);
-                } catch (de.renew.unify.Impossible e) {
-                    throw new RuntimeException(
-                                    "Unification failed unexpectedly.", e);
+                    synchronizeAmount(channel, vvamount);
+                    result.complete(null);
+                } catch (Throwable t) {
+                    result.completeExceptionally(t);
                 }
-                outTuple = de.renew.call.SynchronisationRequest
-                                .synchronize(_instance, "withdraw", inTuple);
-                //**only to avoid unused warnings. !BAD! style**
-                outTuple.hashCode();
             }
         });
+        return result;
+    }
+
+    public void deposit(final int ppamount) {
+        synchronizeAmountAndWait("deposit", intValue(ppamount));
+    }
+
+    /**
+     * Queues {@code :deposit} and returns without waiting. The caller's
+     * thread is not blocked, but the call still occupies one thread of
+     * the simulation thread pool, which waits in
+     * {@code SynchronisationRequest.synchronize} until the channel fires.
+     * That pool is unbounded, so pending async calls are not bounded
+     * either; callers that issue many of them must limit themselves.
+     */
+    public CompletableFuture<Void> depositAsync(final int ppamount) {
+        return synchronizeAmountAsync("deposit", intValue(ppamount));
+    }
+
+    public void withdraw(final int ppamount) {
+        synchronizeAmountAndWait("withdraw", intValue(ppamount));
+    }
+
+    /**
+     * Queues {@code :withdraw}. Occupies a simulation pool thread until
+     * the channel fires, see {@link #depositAsync(int)}.
+     */
+    public CompletableFuture<Void> withdrawAsync(final int ppamount) {
+        return synchronizeAmountAsync("withdraw", intValue(ppamount));
+    }
+
+    /**
+     * Waits for {@code future} at most until the deadline. Unlike the
+     * untimed methods, failures are thrown instead of being logged and
+     * replaced by a default value. On timeout, or if the waiting thread
+     * is interrupted, the future is cancelled, which stops the channel
+     * call only if it has not started yet; the interrupt flag is restored
+     * before the {@code InterruptedException} is rethrown.
+     */
+    private static <T> T awaitChannel(CompletableFuture<T> future,
+                    long timeout, TimeUnit unit)
+                    throws TimeoutException, InterruptedException {
+        try {
+            return future.get(timeout, unit);
+        } catch (TimeoutException e) {
+            future.cancel(false);
+            throw e;
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException("Simulation thread threw an exception",
+                            cause);
+        }
+    }
+
+    /**
+     * Like {@link #deposit(int)}, but gives up waiting after the timeout.
+     * A {@code TimeoutException} does not mean nothing happened: if the
+     * channel call had already started, it still fires later, so callers
+     * must not simply retry. On a simulation thread the call runs inline,
+     * like the untimed method, and the timeout does not apply.
+     */
+    public void deposit(final int ppamount, long timeout, TimeUnit unit)
+                    throws TimeoutException, InterruptedException {
+        if (SimulationThreadPool.getCurrent().isMyThread()) {
+            synchronizeAmount("deposit", intValue(ppamount));
+            return;
+        }
+        awaitChannel(depositAsync(ppamount), timeout, unit);
+    }
+
+    /**
+     * Like {@link #withdraw(int)} with a timeout. A timed-out withdrawal
+     * may still take effect, see {@link #deposit(int, long, TimeUnit)}.
+     */
+    public void withdraw(final int ppamount, long timeout, TimeUnit unit)
+                    throws TimeoutException, InterruptedException {
+        if (SimulationThreadPool.getCurrent().isMyThread()) {
+            synchronizeAmount("withdraw", intValue(ppamount));
+            return;
+        }
+        awaitChannel(withdrawAsync(ppamount), timeout, unit);
+    }
+
+    /**
+     * Like {@link #currentAmount()} with a timeout, see
+     * {@link #deposit(int, long, TimeUnit)}.
+     */
+    public int currentAmount(long timeout, TimeUnit unit)
+                    throws TimeoutException, InterruptedException {
+        if (SimulationThreadPool.getCurrent().isMyThread()) {
+            return synchronizeCurrentAmount();
+        }
+        return awaitChannel(currentAmountAsync(), timeout, unit);
+    }
+
+    private int synchronizeCurrentAmount() {
+        Object vvreturn;
+        de.renew.unify.Tuple inTuple;
+        de.renew.unify.Tuple outTuple;
+        inTuple = new de.renew.unify.Tuple(1);
+        try {
+            de.renew.expression.CallExpression.expressionConstraint(
+                            new de.renew.unify.Variable(), INT_CAST,
+                            new de.renew.unify.Variable(
+                                            inTuple.getComponent(0), null),
+                            null);
+        } catch (de.renew.unify.Impossible e) {
+            throw new RuntimeException("Unification failed unexpectedly.", e);
+        }
+        outTuple = de.renew.call.SynchronisationRequest.synchronize(_instance,
+                        "amount", inTuple);
+        vvreturn = outTuple.getComponent(0);
+        return ((de.renew.util.Value) vvreturn).intValue();
     }
 
     public int currentAmount() {
@@ -68,35 +225,7 @@ public class Account extends de.renew.net.NetInstanceImpl {
                         .submitAndWait(new Callable<java.lang.Integer>() {
                             public java.lang.Integer call()
                                             throws RuntimeException {
-                                Object vvreturn;
-                                de.renew.unify.Tuple inTuple;
-                                de.renew.unify.Tuple outTuple;
-                                inTuple = new de.renew.unify.Tuple(1);
-                                try {
-                                    de.renew.expression.CallExpression
-                                                    .expressionConstraint(
-                                                                    new de.renew.unify.Variable(),
-                                                                    new de.renew.formalism.function.CastFunction(
-                                                                                    java.lang.Integer.TYPE),
-                                                                    new de.renew.unify.Variable(
-                                                                                    inTuple.getComponent(
-                                                                                                    0),
-                                                                                    null),
-                                                                    null);
-                                } catch (de.renew.unify.Impossible e) {
-                                    throw new RuntimeException(
-                                                    "Unification failed unexpectedly.",
-                                                    e);
-                                }
-                                outTuple = de.renew.call.SynchronisationRequest
-                                                .synchronize(_instance,
-                                                                "amount",
-                                                                inTuple);
-                                //**only to avoid unused warnings. !BAD! style**
-                                outTuple.hashCode();
-                                vvreturn = outTuple.getComponent(0);
-                                return ((de.renew.util.Value) vvreturn)
-                                                .intValue();
+                                return synchronizeCurrentAmount();
                             }
                         });
         try {
@@ -112,16 +241,36 @@ public class Account extends de.renew.net.NetInstanceImpl {
         return 0;
     }
 
+    /**
+     * Queues {@code :amount}. Occupies a simulation pool thread until
+     * the channel fires, see {@link #depositAsync(int)}.
+     */
+    public CompletableFuture<java.lang.Integer> currentAmountAsync() {
+        final CompletableFuture<java.lang.Integer> result = new CompletableFuture<java.lang.Integer>();
+        SimulationThreadPool.getCurrent().execute(new Runnable() {
+            @Override
+            public void run() {
+                if (result.isDone()) {
+                    // Cancelled by a timed caller before it started.
+                    return;
+                }
+                try {
+                    result.complete(synchronizeCurrentAmount());
+                } catch (Throwable t) {
+                    result.completeExceptionally(t);
+                }
+            }
+        });
+        return result;
+    }
+
     public Account() {
         super();
         Future<Object> future = SimulationThreadPool.getCurrent()
                         .submitAndWait(new Callable<Object>() {
                             public Object call() throws RuntimeException {
                                 try {
-                                    de.renew.net.Net net = de.renew.net.Net
-                                                    .forName("account");
-                                    net.setEarlyTokens(true);
-                                    initNet(net, true);
+                                    initNet(accountNet(), true);
                                     createConfirmation(
                                                     de.renew.application.SimulatorPlugin
                                                                     .getCurrent()
@@ -145,4 +294,79 @@ public class Account extends de.renew.net.NetInstanceImpl {
             logger.error("Simulation thread threw an exception", e);
         }
     }
+
+    private Account(de.renew.net.Net net,
+                    de.renew.engine.common.StepIdentifier stepIdentifier)
+                    throws de.renew.unify.Impossible {
+        super();
+        initNet(net, true);
+        createConfirmation(stepIdentifier);
+    }
+
+    /**
+     * Must be called from a simulation thread. A new simulation
+     * environment compiles its own nets, so the cached net is replaced.
+     */
+    private static synchronized de.renew.net.Net accountNet()
+                    throws de.renew.net.NetNotFoundException {
+        de.renew.application.SimulationEnvironment environment = de.renew.application.SimulatorPlugin
+                        .getCurrent().getCurrentEnvironment();
+        de.renew.net.Net cached = net.get();
+        if (cached == null || netEnvironment.get() != environment) {
+            cached = de.renew.net.Net.forName("account");
+            cached.setEarlyTokens(true);
+            net = new java.lang.ref.WeakReference<de.renew.net.Net>(cached);
+            netEnvironment = new java.lang.ref.WeakReference<de.renew.application.SimulationEnvironment>(
+                            environment);
+        }
+        return cached;
+    }
+
+    /**
+     * Creates {@code n} accounts in a single simulation task that shares
+     * one step identifier.
+     */
+    public static java.util.List<Account> createMany(final int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException("n must not be negative: "
+                            + n);
+        }
+        Future<java.util.List<Account>> future = SimulationThreadPool
+                        .getCurrent()
+                        .submitAndWait(new Callable<java.util.List<Account>>() {
+                            public java.util.List<Account> call()
+                                            throws RuntimeException {
+                                java.util.List<Account> accounts = new java.util.ArrayList<Account>(
+                                                n);
+                                try {
+                                    de.renew.net.Net net = accountNet();
+                                    de.renew.engine.common.StepIdentifier stepIdentifier = de.renew.application.SimulatorPlugin
+                                                    .getCurrent()
+                                                    .getCurrentEnvironment()
+                                                    .getSimulator()
+                                                    .currentStepIdentifier();
+                                    for (int i = 0; i < n; i++) {
+                                        accounts.add(new Account(net,
+                                                        stepIdentifier));
+                                    }
+                                } catch (de.renew.net.NetNotFoundException e) {
+                                    throw new RuntimeException(e.toString(), e);
+                                } catch (de.renew.unify.Impossible e) {
+                                    throw new RuntimeException(e.toString(), e);
+                                }
+                                return accounts;
+                            }
+                        });
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            logger.error("Timeout while waiting for simulation thread to finish",
+                            e);
+        } catch (ExecutionException e) {
+            logger.error("Simulation thread threw an exception", e);
+        }
+
+        // We should never return nothing but some error occured befor.
+        return java.util.Collections.emptyList();
+    }
 }
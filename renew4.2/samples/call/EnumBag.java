@@ -1,4 +1,5 @@
-// This file was automatically generated. Do not modify.
+// Generated from EnumBag.stub by compilestub, then extended by hand.
+// Do not regenerate: see Readme.txt.
 package samples.call;
 
 import de.renew.engine.simulator.SimulationThreadPool;
@@ -16,60 +17,22 @@ public class EnumBag extends de.renew.net.NetInstanceImpl
                     .getLogger(EnumBag.class);
     private final NetInstance _instance = this;
 
+    // Built once: CastFunction only holds the target class.
+    private static final de.renew.formalism.function.CastFunction BOOLEAN_CAST = new de.renew.formalism.function.CastFunction(
+                    java.lang.Boolean.TYPE);
+    private static final de.renew.formalism.function.CastFunction OBJECT_CAST = new de.renew.formalism.function.CastFunction(
+                    java.lang.Object.class);
+
     @Override
     public boolean hasMoreElements() {
         Future<java.lang.Boolean> future = SimulationThreadPool.getCurrent()
                         .submitAndWait(new Callable<java.lang.Boolean>() {
-			    @Override
-			    public java.lang.Boolean call()
+                            @Override
+                            public java.lang.Boolean call()
                                             throws RuntimeException {
-                                Object vvreturn;
-                                de.renew.unify.Tuple inTuple;
-                                de.renew.unify.Tuple outTuple;
-                                Object vvinstance;
-                                inTuple = new de.renew.unify.Tuple(1);
-                                outTuple = de.renew.call.SynchronisationRequest
-                                                .synchronize(_instance,
-                                                                "hasMoreElements",
-                                                                inTuple);
-                                //**only to avoid unused warnings. !BAD! style**
-                                outTuple.hashCode();
-                                vvinstance = outTuple.getComponent(0);
-                                inTuple = new de.renew.unify.Tuple(2);
-                                try {
-                                    de.renew.unify.Unify.unify(
-                                                    inTuple.getComponent(0),
-                                                    vvinstance, null);
-                                } catch (de.renew.unify.Impossible e) {
-                                    throw new RuntimeException(
-                                                    "Unification failed unexpectedly.",
-                                                    e);
-                                }
-                                try {
-                                    de.renew.expression.CallExpression
-                                                    .expressionConstraint(
-                                                                    new de.renew.unify.Variable(),
-                                                                    new de.renew.formalism.function.CastFunction(
-                                                                                    java.lang.Boolean.TYPE),
-                                                                    new de.renew.unify.Variable(
-                                                                                    inTuple.getComponent(
-                                                                                                    1),
-                                                                                    null),
-                                                                    null);
-                                } catch (de.renew.unify.Impossible e) {
-                                    throw new RuntimeException(
-                                                    "Unification failed unexpectedly.",
-                                                    e);
-                                }
-                                outTuple = de.renew.call.SynchronisationRequest
-                                                .synchronize(_instance,
-                                                                "result",
-                                                                inTuple);
-                                //**only to avoid unused warnings. !BAD! style**
-                                outTuple.hashCode();
-                                vvreturn = outTuple.getComponent(1);
-                                return ((de.renew.util.Value) vvreturn)
-                                                .booleanValue();
+                                return ((de.renew.util.Value) synchronizeAndFetchResult(
+                                                "hasMoreElements",
+                                                BOOLEAN_CAST)).booleanValue();
                             }
                         });
         try {
@@ -88,54 +51,11 @@ public class EnumBag extends de.renew.net.NetInstanceImpl
     public java.lang.Object nextElement() {
         Future<java.lang.Object> future = SimulationThreadPool.getCurrent()
                         .submitAndWait(new Callable<java.lang.Object>() {
+                            @Override
                             public java.lang.Object call()
                                             throws RuntimeException {
-                                Object vvreturn;
-                                de.renew.unify.Tuple inTuple;
-                                de.renew.unify.Tuple outTuple;
-                                Object vvinstance;
-                                inTuple = new de.renew.unify.Tuple(1);
-                                outTuple = de.renew.call.SynchronisationRequest
-                                                .synchronize(_instance,
-                                                                "nextElement",
-                                                                inTuple);
-                                //**only to avoid unused warnings. !BAD! style**
-                                outTuple.hashCode();
-                                vvinstance = outTuple.getComponent(0);
-                                inTuple = new de.renew.unify.Tuple(2);
-                                try {
-                                    de.renew.unify.Unify.unify(
-                                                    inTuple.getComponent(0),
-                                                    vvinstance, null);
-                                } catch (de.renew.unify.Impossible e) {
-                                    throw new RuntimeException(
-                                                    "Unification failed unexpectedly.",
-                                                    e);
-                                }
-                                try {
-                                    de.renew.expression.CallExpression
-                                                    .expressionConstraint(
-                                                                    new de.renew.unify.Variable(),
-                                                                    new de.renew.formalism.function.CastFunction(
-                                                                                    java.lang.Object.class),
-                                                                    new de.renew.unify.Variable(
-                                                                                    inTuple.getComponent(
-                                                                                                    1),
-                                                                                    null),
-                                                                    null);
-                                } catch (de.renew.unify.Impossible e) {
-                                    throw new RuntimeException(
-                                                    "Unification failed unexpectedly.",
-                                                    e);
-                                }
-                                outTuple = de.renew.call.SynchronisationRequest
-                                                .synchronize(_instance,
-                                                                "result",
-                                                                inTuple);
-                                //**only to avoid unused warnings. !BAD! style**
-                                outTuple.hashCode();
-                                vvreturn = outTuple.getComponent(1);
-                                return (java.lang.Object) vvreturn;
+                                return synchronizeAndFetchResult(
+                                                "nextElement", OBJECT_CAST);
                             }
                         });
         try {
@@ -151,6 +71,118 @@ public class EnumBag extends de.renew.net.NetInstanceImpl
         return null;
     }
 
+    /**
+     * Runs {@code channel(instance)} followed by
+     * {@code result(instance, return)}. Must be called from a simulation
+     * thread.
+     */
+    private Object synchronizeAndFetchResult(String channel,
+                    de.renew.formalism.function.CastFunction cast) {
+        de.renew.unify.Tuple inTuple;
+        de.renew.unify.Tuple outTuple;
+        Object vvinstance;
+        inTuple = new de.renew.unify.Tuple(1);
+        outTuple = de.renew.call.SynchronisationRequest.synchronize(_instance,
+                        channel, inTuple);
+        vvinstance = outTuple.getComponent(0);
+        inTuple = new de.renew.unify.Tuple(2);
+        try {
+            de.renew.unify.Unify.unify(inTuple.getComponent(0), vvinstance,
+                            null);
+            de.renew.expression.CallExpression.expressionConstraint(
+                            new de.renew.unify.Variable(), cast,
+                            new de.renew.unify.Variable(
+                                            inTuple.getComponent(1), null),
+                            null);
+        } catch (de.renew.unify.Impossible e) {
+            throw new RuntimeException("Unification failed unexpectedly.", e);
+        }
+        outTuple = de.renew.call.SynchronisationRequest.synchronize(_instance,
+                        "result", inTuple);
+        return outTuple.getComponent(1);
+    }
+
+    /**
+     * Takes up to {@code chunkSize} elements in one simulation task. A
+     * shorter list means the bag is drained. Failures are thrown, so that
+     * they are not mistaken for an empty bag.
+     */
+    private java.util.List<java.lang.Object> nextChunk(final int chunkSize) {
+        Future<java.util.List<java.lang.Object>> future = SimulationThreadPool
+                        .getCurrent()
+                        .submitAndWait(new Callable<java.util.List<java.lang.Object>>() {
+                            @Override
+                            public java.util.List<java.lang.Object> call()
+                                            throws RuntimeException {
+                                java.util.List<java.lang.Object> chunk = new java.util.ArrayList<java.lang.Object>(
+                                                chunkSize);
+                                while (chunk.size() < chunkSize
+                                                && ((de.renew.util.Value) synchronizeAndFetchResult(
+                                                                "hasMoreElements",
+                                                                BOOLEAN_CAST))
+                                                                .booleanValue()) {
+                                    chunk.add(synchronizeAndFetchResult(
+                                                    "nextElement",
+                                                    OBJECT_CAST));
+                                }
+                                return chunk;
+                            }
+                        });
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(
+                            "Interrupted while waiting for simulation thread",
+                            e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException("Simulation thread threw an exception",
+                            cause);
+        }
+    }
+
+    /**
+     * Drains the bag as a sequential stream, fetching {@code chunkSize}
+     * elements per simulation task instead of one. If a chunk cannot be
+     * fetched, the stream's terminal operation throws a
+     * {@code RuntimeException} instead of ending early.
+     */
+    public java.util.stream.Stream<java.lang.Object> stream(
+                    final int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be positive: "
+                            + chunkSize);
+        }
+        return java.util.stream.StreamSupport.stream(
+                        new java.util.Spliterators.AbstractSpliterator<java.lang.Object>(
+                                        Long.MAX_VALUE,
+                                        java.util.Spliterator.ORDERED) {
+                            private java.util.Iterator<java.lang.Object> buffer = java.util.Collections
+                                            .emptyIterator();
+                            private boolean drained = false;
+
+                            @Override
+                            public boolean tryAdvance(
+                                            java.util.function.Consumer<? super java.lang.Object> action) {
+                                if (!buffer.hasNext() && !drained) {
+                                    java.util.List<java.lang.Object> chunk = nextChunk(
+                                                    chunkSize);
+                                    drained = chunk.size() < chunkSize;
+                                    buffer = chunk.iterator();
+                                }
+                                if (!buffer.hasNext()) {
+                                    return false;
+                                }
+                                action.accept(buffer.next());
+                                return true;
+                            }
+                        }, false);
+    }
+
     public EnumBag() {
         super();
         Future<Object> future = SimulationThreadPool.getCurrent()